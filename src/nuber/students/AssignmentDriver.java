@@ -69,6 +69,22 @@ public class AssignmentDriver {
 		//new Simulation(regions, 10, 10, 1000, logEvents);
 		//new Simulation(regions, 10, 100, 1000, logEvents);
 		//new Simulation(regions, 1, 50, 1000, logEvents);
+		
+		//compare the average wait for a driver with idle driver rebalancing off and on
+		//300 passengers book across four regions, 80% of them into a hotspot that moves between regions
+		HashMap<String, Integer> hotspotRegions = new HashMap<String, Integer>();
+		hotspotRegions.put("North", 50);
+		hotspotRegions.put("South", 50);
+		hotspotRegions.put("East", 50);
+		hotspotRegions.put("West", 50);
+		
+		//saturated, passengers arrive 25ms apart, faster than 12 drivers can serve them
+		//new Simulation(hotspotRegions, 12, 300, 300, false, false, 25, 0.8);
+		//new Simulation(hotspotRegions, 12, 300, 300, false, true, 25, 0.8);
+		
+		//below capacity, passengers arrive 75ms apart, so there are usually idle drivers to move
+		//new Simulation(hotspotRegions, 12, 300, 300, false, false, 75, 0.8);
+		//new Simulation(hotspotRegions, 12, 300, 300, false, true, 75, 0.8);
 	}
 
 }
@@ -1,4 +1,5 @@
 package nuber.students;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Date;
 
@@ -27,9 +28,10 @@ public class Booking {
 	private static final AtomicInteger idCounter = new AtomicInteger(0); // Unique ID counter
 	private final int bookingId; // Booking Id
 	private final NuberDispatch dispatch; 
+	private final NuberRegion region; // Region running the booking, null if not booked through a region
 	private final Passenger passenger; 
 	private final long creationTime;
-	private Driver driver;
+	private volatile Driver driver;
 		
 	/**
 	 * Creates a new booking for a given Nuber dispatch and passenger, noting that no
@@ -40,13 +42,41 @@ public class Booking {
 	 * @param passenger
 	 */
 	public Booking(NuberDispatch dispatch, Passenger passenger)
+	{
+		this(dispatch, passenger, null);
+	}
+
+	/**
+	 * Creates a new booking that will be run by the given region. Drivers are taken from,
+	 * and returned to, that region's idle drivers in dispatch.
+	 * 
+	 * @param dispatch
+	 * @param passenger
+	 * @param region
+	 */
+	public Booking(NuberDispatch dispatch, Passenger passenger, NuberRegion region)
 	{
 		this.bookingId = idCounter.incrementAndGet(); // Generate unique id
         this.dispatch = dispatch; 
+        this.region = region;
         this.passenger = passenger; 
         this.creationTime = new Date().getTime(); 
         
         logEvent(bookingId + ": null:null: Creating booking"); //Records creation time 
+        publishEvent(BookingEvent.Type.CREATED);
+	}
+
+	private void publishEvent(BookingEvent.Type type) {
+		BookingEvent event = new BookingEvent(type, bookingId, getRegionName(), driver, passenger);
+		if (region != null) {
+			region.publishEvent(event); // Region forwards to dispatch
+		} else {
+			dispatch.publishEvent(event);
+		}
+	}
+
+	public String getRegionName() {
+		return (region != null) ? region.getName() : null;
 	}
 	
 	private void logEvent(String string) {
@@ -67,37 +97,114 @@ public class Booking {
 	 * 6.	The driver, now free, is added back into Dispatch�s list of available drivers. 
 	 * 7.	The call() function the returns a BookingResult object, passing in the appropriate 
 	 * 			information required in the BookingResult constructor.
+	 * 
+	 * If the thread is interrupted, because the booking was cancelled or timed out, the booking
+	 * stops waiting for a driver, or returns its driver to dispatch, and throws CancellationException.
 	 *
 	 * @return A BookingResult containing the final information about the booking 
 	 */
 	public BookingResult call() {
-	    Driver driver = dispatch.getDriver(); // Attempt to get available driver
+	    BookingPhaseEvent driverWait = new BookingPhaseEvent(BookingPhaseEvent.DRIVER_WAIT);
+	    driverWait.begin();
+	    Driver driver = dispatch.getDriver(getRegionName()); // Attempt to get available driver
 
 	    // Waiting for driver to become available 
 	    while (driver == null) {
-	        driver = dispatch.getDriver(); 
 	        try {
 	            Thread.sleep(100);  // Pause to check
 	        } catch (InterruptedException e) {
 	            Thread.currentThread().interrupt(); 
+	            driverWait.finish(bookingId, getRegionName(), null, passenger);
+	            throw new CancellationException("Booking " + bookingId + " cancelled whilst waiting for a driver");
 	        }
+	        driver = dispatch.getDriver(getRegionName()); 
+	    }
+	    this.driver = driver;
+	    driverWait.finish(bookingId, getRegionName(), driver, passenger);
+	    DriverEvent.record(DriverEvent.ACQUIRE, bookingId, getRegionName(), driver, passenger);
+	    if (region != null) {
+	        region.driverAssigned(this);
 	    }
+	    publishEvent(BookingEvent.Type.DRIVER_ASSIGNED);
 
-	    driver.pickUpPassenger(passenger); // Driver picks up passenger
+	    // A driver idle in another region has to come to this one first, unless the booking has no region
+	    if (getRegionName() != null && driver.getRegion() != null && !driver.getRegion().equals(getRegionName())) {
+	        BookingPhaseEvent reposition = new BookingPhaseEvent(BookingPhaseEvent.REPOSITION);
+	        reposition.begin();
+	        driver.repositionTo(getRegionName(), passenger, bookingId);
+	        reposition.finish(bookingId, getRegionName(), driver, passenger);
+	    }
+	    releaseIfCancelled(driver);
+	    long driverWaitTime = new Date().getTime() - creationTime; // Time from booking until a driver is ready
+
+	    BookingPhaseEvent pickUp = new BookingPhaseEvent(BookingPhaseEvent.PICK_UP);
+	    pickUp.begin();
+	    driver.pickUpPassenger(passenger, bookingId); // Driver picks up passenger
+	    pickUp.finish(bookingId, getRegionName(), driver, passenger);
+	    releaseIfCancelled(driver);
+	    publishEvent(BookingEvent.Type.PICKED_UP);
 
+	    BookingPhaseEvent drive = new BookingPhaseEvent(BookingPhaseEvent.DRIVE);
+	    drive.begin();
 	    driver.driveToDestination(); // Driver takes passenger to destination
+	    drive.finish(bookingId, getRegionName(), driver, passenger);
+	    releaseIfCancelled(driver);
+
+	    // Past this point a cancel() fails, so a completed trip is never also reported as cancelled
+	    if (region != null && !region.bookingCompleting(this)) {
+	        abandon(driver);
+	    }
 
 	    // Calculates total trip time
 	    long endTime = new Date().getTime();
 	    long duration = endTime - creationTime; 
 
-	    dispatch.releaseDriver(driver);
+	    dispatch.releaseDriver(driver, getRegionName()); // Driver is now idle where the trip ended
+	    DriverEvent.record(DriverEvent.RELEASE, bookingId, getRegionName(), driver, passenger);
+	    publishEvent(BookingEvent.Type.COMPLETED);
 
 	    // Returns booking result
-	    return new BookingResult(bookingId, passenger, driver, duration);
+	    return new BookingResult(bookingId, passenger, driver, duration, driverWaitTime);
 
 	}
 	
+	/**
+	 * Returns the driver to dispatch and abandons the booking if the thread has been interrupted
+	 */
+	private void releaseIfCancelled(Driver driver) {
+		if (Thread.currentThread().isInterrupted()) {
+			abandon(driver);
+		}
+	}
+
+	/**
+	 * Returns the driver to dispatch and abandons the booking, which has been cancelled
+	 */
+	private void abandon(Driver driver) {
+		dispatch.releaseDriver(driver, getRegionName());
+		DriverEvent.record(DriverEvent.RELEASE, bookingId, getRegionName(), driver, passenger);
+		throw new CancellationException("Booking " + bookingId + " cancelled, driver " + driver + " returned to dispatch");
+	}
+
+	public int getBookingId() {
+		return bookingId;
+	}
+
+	public Passenger getPassenger() {
+		return passenger;
+	}
+
+	public Driver getDriver() {
+		return driver;
+	}
+
+	/**
+	 * @return true once dispatch has given this booking a driver
+	 */
+	public boolean hasDriver() {
+		return driver != null;
+	}
+
 	/***
 	 * Should return the:
 	 * - booking ID, 
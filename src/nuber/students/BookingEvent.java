@@ -0,0 +1,47 @@
+package nuber.students;
+
+import java.util.Date;
+
+/**
+ * A single step in the lifecycle of a booking, as published by NuberDispatch and NuberRegion.
+ *
+ * Any of the booking ID, region, driver or passenger may be unknown at the point the event
+ * is raised, in which case the ID is -1 and the names are null.
+ *
+ */
+public class BookingEvent {
+
+	public enum Type {
+		CREATED,
+		QUEUED,
+		DRIVER_ASSIGNED,
+		PICKED_UP,
+		COMPLETED,
+		REJECTED,
+		CANCELLED,
+		TIMED_OUT,
+		SHUT_DOWN
+	}
+
+	public final Type type;
+	public final int bookingId;
+	public final String region;
+	public final String driver;
+	public final String passenger;
+	public final long timestamp;
+
+	public BookingEvent(Type type, int bookingId, String region, Driver driver, Passenger passenger)
+	{
+		this.type = type;
+		this.bookingId = bookingId;
+		this.region = region;
+		this.driver = (driver != null) ? driver.name : null;
+		this.passenger = (passenger != null) ? passenger.name : null;
+		this.timestamp = new Date().getTime();
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + bookingId + ":" + region + ":" + driver + ":" + passenger;
+	}
+}
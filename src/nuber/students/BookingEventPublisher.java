@@ -0,0 +1,83 @@
+package nuber.students;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes BookingEvents to any number of Flow subscribers.
+ *
+ * Each subscriber gets its own bounded buffer and is only sent events it has requested.
+ * Publishing never blocks the booking thread: if a subscriber's buffer is full, the event
+ * is dropped for that subscriber and counted, rather than waiting for it to catch up.
+ *
+ * Subscriber callbacks run on this publisher's own pool of daemon threads, never on the
+ * booking thread. Each subscriber is called from one thread at a time, and subscribers do
+ * not share a thread, so a slow subscriber only delays its own events. Being daemon threads,
+ * they never keep the JVM running after the simulation ends.
+ *
+ */
+public class BookingEventPublisher implements Flow.Publisher<BookingEvent> {
+
+	private final ExecutorService deliveryThreads;
+	private final SubmissionPublisher<BookingEvent> publisher;
+	private final AtomicLong droppedEvents = new AtomicLong(0);
+
+	public BookingEventPublisher()
+	{
+		this(Flow.defaultBufferSize());
+	}
+
+	/**
+	 * @param bufferSize The maximum number of undelivered events held for each subscriber
+	 */
+	public BookingEventPublisher(int bufferSize)
+	{
+		this.deliveryThreads = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "nuber-events");
+			t.setDaemon(true);
+			return t;
+		});
+		this.publisher = new SubmissionPublisher<>(deliveryThreads, bufferSize);
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super BookingEvent> subscriber) {
+		publisher.subscribe(subscriber);
+	}
+
+	/**
+	 * Offers the event to every current subscriber without waiting for buffer space.
+	 * Events published after close() are ignored.
+	 *
+	 * @param event The event to publish
+	 */
+	public void publish(BookingEvent event) {
+		if (publisher.isClosed() || !publisher.hasSubscribers()) return;
+
+		try {
+			publisher.offer(event, (subscriber, dropped) -> {
+				droppedEvents.incrementAndGet();
+				return false; // Never retry, the booking thread must not wait
+			});
+		} catch (IllegalStateException e) {
+			// Closed between the check and the offer
+		}
+	}
+
+	/**
+	 * Completes every subscriber once they have consumed their buffered events
+	 */
+	public void close() {
+		publisher.close();
+	}
+
+	/**
+	 * @return Number of events dropped because a subscriber's buffer was full
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+}
@@ -0,0 +1,64 @@
+package nuber.students;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event timing one phase of a booking.
+ *
+ * Fields are only filled in when shouldCommit() is true, so when recording is off an event
+ * costs no more than the begin() and end() calls.
+ *
+ */
+@Name("nuber.BookingPhase")
+@Label("Booking Phase")
+@Category("Nuber")
+@Description("Time a booking spent in one phase")
+@StackTrace(false)
+public class BookingPhaseEvent extends Event {
+
+	public static final String ADMISSION = "Region admission"; // Waiting for a free position in the region
+	public static final String DRIVER_WAIT = "Driver wait"; // Waiting in Booking.call() for an idle driver
+	public static final String REPOSITION = "Reposition"; // Driver moving from another region
+	public static final String PICK_UP = "Pick up"; // Driver collecting the passenger
+	public static final String DRIVE = "Drive"; // Driving to the destination
+	public static final String LOG = "Log"; // Writing an event to System.out, including waiting for it
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Booking ID")
+	public int bookingId;
+
+	@Label("Region")
+	public String region;
+
+	@Label("Driver")
+	public String driver;
+
+	@Label("Passenger")
+	public String passenger;
+
+	public BookingPhaseEvent(String phase)
+	{
+		this.phase = phase;
+	}
+
+	/**
+	 * Ends the event and commits it, if it is enabled and over the recording's threshold
+	 */
+	public void finish(int bookingId, String region, Driver driver, Passenger passenger) {
+		end();
+		if (!shouldCommit()) return;
+
+		this.bookingId = bookingId;
+		this.region = region;
+		this.driver = (driver != null) ? driver.name : null;
+		this.passenger = (passenger != null) ? passenger.name : null;
+		commit();
+	}
+}
@@ -0,0 +1,122 @@
+package nuber.students;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Reads a Flight Recorder recording made with nuber.jfc and prints where booking time went.
+ *
+ * Usage: java nuber.students.BookingRecordingAnalyser recording.jfr
+ *
+ * Pick up and Drive include the console line each driver prints, which is also counted under Log.
+ *
+ */
+public class BookingRecordingAnalyser {
+
+	private final Map<String, Phase> phases = new TreeMap<>();
+	private final Map<String, Integer> driverActions = new TreeMap<>();
+	private final Map<String, Integer> admissions = new TreeMap<>();
+	private final Phase consoleContention = new Phase();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: java nuber.students.BookingRecordingAnalyser recording.jfr");
+			return;
+		}
+
+		BookingRecordingAnalyser analyser = new BookingRecordingAnalyser();
+		analyser.read(Paths.get(args[0]));
+		analyser.print();
+	}
+
+	public void read(Path recording) throws IOException {
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				add(file.readEvent());
+			}
+		}
+	}
+
+	private void add(RecordedEvent event) {
+		switch (event.getEventType().getName()) {
+		case "nuber.BookingPhase":
+			phases.computeIfAbsent(event.getString("phase"), p -> new Phase()).add(event.getDuration());
+			break;
+		case "nuber.Driver":
+			driverActions.merge(event.getString("action"), 1, Integer::sum);
+			break;
+		case "nuber.RegionAdmission":
+			admissions.merge(event.getString("region") + " " + event.getString("outcome"), 1, Integer::sum);
+			break;
+		case "jdk.JavaMonitorEnter": // PrintStream up to JDK 18
+		case "jdk.ThreadPark": // PrintStream from JDK 19, other parks are filtered out
+			if (isConsole(event)) {
+				consoleContention.add(event.getDuration());
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return true if the blocked thread was trying to write to the console
+	 */
+	private static boolean isConsole(RecordedEvent event) {
+		if (event.getStackTrace() == null) return false;
+
+		for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+			String type = frame.getMethod().getType().getName();
+			if (type.equals("java.io.PrintStream")) return true;
+		}
+		return false;
+	}
+
+	public void print() {
+		System.out.println(String.format("%-18s %8s %12s %10s %10s", "Phase", "Count", "Total ms", "Avg ms", "Max ms"));
+		for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+			entry.getValue().print(entry.getKey());
+		}
+		if (consoleContention.count > 0) {
+			consoleContention.print("Blocked on stdout");
+		}
+
+		System.out.println();
+		for (Map.Entry<String, Integer> entry : driverActions.entrySet()) {
+			System.out.println("Driver " + entry.getKey() + ": " + entry.getValue());
+		}
+		for (Map.Entry<String, Integer> entry : admissions.entrySet()) {
+			System.out.println(entry.getKey() + ": " + entry.getValue());
+		}
+	}
+
+	/**
+	 * Running totals for one phase
+	 */
+	private static class Phase {
+
+		private int count = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		void add(Duration duration) {
+			long nanos = duration.toNanos();
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		void print(String name) {
+			System.out.println(String.format("%-18s %8d %12.1f %10.2f %10.2f", name, count,
+					totalNanos / 1e6, totalNanos / 1e6 / count, maxNanos / 1e6));
+		}
+	}
+}
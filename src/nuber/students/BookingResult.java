@@ -6,13 +6,20 @@ public class BookingResult {
 	public Passenger passenger;
 	public Driver driver;
 	public long tripDuration;
+	public long driverWait; // Time from booking until a driver was ready to pick up
 	
 	public BookingResult(int jobID, Passenger passenger, Driver driver, long tripDuration)
+	{
+		this(jobID, passenger, driver, tripDuration, 0);
+	}
+	
+	public BookingResult(int jobID, Passenger passenger, Driver driver, long tripDuration, long driverWait)
 	{
 		this.jobID = jobID;
 		this.passenger = passenger;
 		this.driver = driver;
 		this.tripDuration = tripDuration;
+		this.driverWait = driverWait;
 	}
 	
 }
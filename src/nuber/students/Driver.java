@@ -3,6 +3,8 @@ package nuber.students;
 public class Driver extends Person {
 
     private Passenger passenger; // Assigned passenger to driver
+    private volatile String region; // Region the driver is currently in, null if not yet located
+    private volatile int bookingId = -1; // Booking the driver is working on, -1 if not known
 	
 	public Driver(String driverName, int maxSleep)
 	{
@@ -20,13 +22,26 @@ public class Driver extends Person {
 	 * @throws InterruptedException
 	 */
 	public void pickUpPassenger(Passenger passenger) {
+        pickUpPassenger(passenger, -1);
+    }
+
+	/**
+	 * Picks up the passenger as pickUpPassenger(Passenger) does, recording the booking
+	 * so the driver's events can be traced back to it.
+	 * 
+	 * @param passenger Passenger to collect
+	 * @param bookingId The booking the passenger was collected for
+	 */
+	public void pickUpPassenger(Passenger passenger, int bookingId) {
         this.passenger = passenger; // Assign new passenger
+        this.bookingId = bookingId;
         int delay = (int) (Math.random() * maxSleep);
         try {
             Thread.sleep(delay); // Time simulation to take to pick up passenger
             logEvent(getId() + name + ":" + passenger.name + ": Collected passenger, on way to destination");
         } catch (InterruptedException e) {
             logEvent("Driver sinterrupted: " + e.getMessage());
+            Thread.currentThread().interrupt(); // Let the booking see it was cancelled
         }
     }
 
@@ -43,11 +58,44 @@ public class Driver extends Person {
 	            logEvent(getId() + ":D-" + name + ":" + passenger.name + ": At destination, driver is now free");
 	        } catch (InterruptedException e) {
 	            logEvent("Driver interrupted: " + e.getMessage());
+	            Thread.currentThread().interrupt(); // Let the booking see it was cancelled
+	        }
+	    }
+	 
+	/**
+	 * Sleeps the thread for NuberDispatch.REPOSITION_DELAY while the driver moves to another region
+	 * 
+	 * @param newRegion Region to move to
+	 * @param passenger The passenger the driver is moving to collect
+	 * @param bookingId The booking the driver is moving for
+	 */
+	 public void repositionTo(String newRegion, Passenger passenger, int bookingId) {
+	        this.passenger = passenger; // Not the previous trip's passenger
+	        this.bookingId = bookingId;
+	        String oldRegion = region;
+	        try {
+	            Thread.sleep(NuberDispatch.REPOSITION_DELAY); // Simulates driving between regions
+	            logEvent(getId() + ":D-" + name + ": Repositioned from " + oldRegion + " to " + newRegion);
+	        } catch (InterruptedException e) {
+	            logEvent("Driver interrupted: " + e.getMessage());
+	            Thread.currentThread().interrupt(); // Let the booking see it was cancelled
 	        }
+	        this.region = newRegion;
+	    }
+	 
+	 public String getRegion() {
+	        return region;
+	    }
+	 
+	 public void setRegion(String region) {
+	        this.region = region;
 	    }
 	 
 	 private void logEvent(String message) {
+	        BookingPhaseEvent log = new BookingPhaseEvent(BookingPhaseEvent.LOG);
+	        log.begin();
 	        System.out.println(message); 
+	        log.finish(bookingId, region, this, passenger);
 	    }
 	 
 	 public String toString() {
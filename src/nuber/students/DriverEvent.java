@@ -0,0 +1,53 @@
+package nuber.students;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event raised when a booking acquires or releases a driver
+ *
+ */
+@Name("nuber.Driver")
+@Label("Driver Acquire/Release")
+@Category("Nuber")
+@Description("A booking took a driver from dispatch, or gave one back")
+@StackTrace(false)
+public class DriverEvent extends Event {
+
+	public static final String ACQUIRE = "Acquire";
+	public static final String RELEASE = "Release";
+
+	@Label("Action")
+	public String action;
+
+	@Label("Booking ID")
+	public int bookingId;
+
+	@Label("Region")
+	public String region;
+
+	@Label("Driver")
+	public String driver;
+
+	@Label("Passenger")
+	public String passenger;
+
+	/**
+	 * Commits an event if driver events are being recorded
+	 */
+	public static void record(String action, int bookingId, String region, Driver driver, Passenger passenger) {
+		DriverEvent event = new DriverEvent();
+		if (!event.shouldCommit()) return;
+
+		event.action = action;
+		event.bookingId = bookingId;
+		event.region = region;
+		event.driver = (driver != null) ? driver.name : null;
+		event.passenger = (passenger != null) ? passenger.name : null;
+		event.commit();
+	}
+}
@@ -6,26 +6,49 @@ import java.util.HashMap;
 import java.util.concurrent.Future;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
 
 /**
  * The core Dispatch class that instantiates and manages everything for Nuber
  * 
+ * Idle drivers are located in the region where their last trip ended. A booking prefers a
+ * driver from its own region, and otherwise takes one from another region and waits for it to
+ * reposition. An optional DriverRebalancer moves idle drivers towards forecast demand ahead of time.
+ * 
+ * Dispatch is also a Flow.Publisher of every BookingEvent raised by its regions and bookings.
+ * 
  * @author james
  *
  */
-public class NuberDispatch {
+public class NuberDispatch implements Flow.Publisher<BookingEvent> {
 
 	/**
 	 * The maximum number of idle drivers that can be awaiting a booking 
 	 */
 	private final int MAX_DRIVERS = 999;
 	
+	/**
+	 * How long (in milliseconds) it takes an idle driver to move from one region to another
+	 */
+	public static final int REPOSITION_DELAY = 250;
+	
 	private boolean logEvents = false; // Control event logging 
 	
 	private Map<String, NuberRegion> regions; // Map to store regions
 	
-	private Queue<Driver> idleDrivers;
+	private Queue<Driver> idleDrivers; // Drivers not yet located in any region
+	
+	private Map<String, Queue<Driver>> regionDrivers; // Idle drivers located in each region
+	
+	private DriverRebalancer rebalancer; // Null when rebalancing is off
+	
+	private final TimingWheel timeouts = new TimingWheel(10, 512); // Booking timeouts, to the nearest 10ms
+	
+	private boolean isTerminated = false;
+	
+	private final BookingEventPublisher events = new BookingEventPublisher(); // Lifecycle events across all regions
 		
 	
 	/**
@@ -36,9 +59,23 @@ public class NuberDispatch {
 	 * @param logEvents Whether logEvent should print out events passed to it
 	 */
 	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents)
+	{
+		this(regionInfo, logEvents, false);
+	}
+	
+	/**
+	 * Creates a new dispatch, optionally running a background rebalancer that moves idle drivers
+	 * between regions ahead of forecast demand.
+	 * 
+	 * @param regionInfo Map of region names and the max simultaneous bookings they can handle
+	 * @param logEvents Whether logEvent should print out events passed to it
+	 * @param rebalance Whether to run the DriverRebalancer
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents, boolean rebalance)
 	{
 		this.logEvents = logEvents;
 		this.idleDrivers = new ConcurrentLinkedQueue<>();
+		this.regionDrivers = new ConcurrentHashMap<>();
 		this.regions = new HashMap<>();
 		
         logEvent(null, "Creating Nuber Dispatch"); // Log dispatch creation
@@ -47,9 +84,15 @@ public class NuberDispatch {
 		for (String regionName : regionInfo.keySet()) {
 			int maxBookings = regionInfo.get(regionName);
 			this.regions.put(regionName, new NuberRegion(this, regionName, maxBookings));
+			this.regionDrivers.put(regionName, new ConcurrentLinkedQueue<>());
 			logEvent(null, "Creating Nuber region for " + regionName);
 		}
 		logEvent(null, "Done creating " + regions.size() + " regions"); // Log completion of region creation
+		
+		if (rebalance) {
+			this.rebalancer = new DriverRebalancer(this, regions.values());
+			rebalancer.start();
+		}
 	}
 	
 	/**
@@ -61,7 +104,7 @@ public class NuberDispatch {
 	 * @return Returns true if driver was added to the queue
 	 */
 	public boolean addDriver(Driver newDriver) {
-		if (idleDrivers.size() < MAX_DRIVERS) {
+		if (getIdleDrivers() < MAX_DRIVERS) {
 			return idleDrivers.offer(newDriver); // Adds driver to the queue
 		}
 		return false;
@@ -76,7 +119,86 @@ public class NuberDispatch {
 	 */
 	public Driver getDriver()
 	{
-		return idleDrivers.poll(); // Removes and returns driver from the queue 
+		Driver driver = idleDrivers.poll(); // Removes and returns driver from the queue 
+		for (Queue<Driver> located : regionDrivers.values()) {
+			if (driver != null) break;
+			driver = located.poll();
+		}
+		return driver;
+	}
+	
+	/**
+	 * Gets an idle driver for a booking in the given region.
+	 * 
+	 * A driver already in the region, or not yet located anywhere, is preferred. Otherwise a driver
+	 * is taken from the region with the most idle drivers to spare, and the caller must reposition
+	 * them with Driver.repositionTo() before the pick up.
+	 * 
+	 * @param region The region the booking is in, or null for any driver
+	 * @return A driver that has been removed from the idle drivers, or null if there are none
+	 */
+	public Driver getDriver(String region)
+	{
+		Queue<Driver> local = (region != null) ? regionDrivers.get(region) : null;
+		if (local == null) {
+			return getDriver();
+		}
+		
+		Driver driver = local.poll();
+		if (driver == null) {
+			driver = idleDrivers.poll();
+		}
+		if (driver != null) {
+			return driver;
+		}
+		
+		// Nothing nearby, take a driver from wherever has the most to spare after the bookings there
+		// that are already asking for one. Queued bookings are left out, they cannot use a driver yet.
+		String from = null;
+		int mostSpare = 0;
+		for (Map.Entry<String, Queue<Driver>> entry : regionDrivers.entrySet()) {
+			NuberRegion other = regions.get(entry.getKey());
+			int spare = entry.getValue().size() - ((other != null) ? other.getStartedBookingsAwaitingDriver() : 0);
+			if (spare > mostSpare) {
+				mostSpare = spare;
+				from = entry.getKey();
+			}
+		}
+		return (from != null) ? regionDrivers.get(from).poll() : null;
+	}
+	
+	/**
+	 * Removes an idle driver from a region, so the rebalancer can move it elsewhere
+	 * 
+	 * @param region The region to take the driver from
+	 * @return An idle driver, or null if the region has none
+	 */
+	public Driver takeIdleDriver(String region)
+	{
+		Queue<Driver> located = regionDrivers.get(region);
+		return (located != null) ? located.poll() : null;
+	}
+	
+	/**
+	 * @param region The region to count
+	 * @return Number of idle drivers located in the region
+	 */
+	public int getIdleDrivers(String region)
+	{
+		Queue<Driver> located = regionDrivers.get(region);
+		return (located != null) ? located.size() : 0;
+	}
+	
+	/**
+	 * @return Number of idle drivers, located or not
+	 */
+	public int getIdleDrivers()
+	{
+		int total = idleDrivers.size();
+		for (Queue<Driver> located : regionDrivers.values()) {
+			total += located.size();
+		}
+		return total;
 	}
 
 	/**
@@ -92,10 +214,46 @@ public class NuberDispatch {
 		if (!logEvents) return;
 		
 	    String bookingId = (booking != null) ? booking.toString() : "Booking not available";
+	    BookingPhaseEvent log = new BookingPhaseEvent(BookingPhaseEvent.LOG);
+	    log.begin();
 		System.out.println(booking + ": " + message);
+		if (booking != null) {
+			log.finish(booking.getBookingId(), booking.getRegionName(), booking.getDriver(), booking.getPassenger());
+		} else {
+			log.finish(-1, null, null, null);
+		}
 		
 	}
 
+	/**
+	 * Subscribes to lifecycle events for all bookings in all regions.
+	 * 
+	 * Each subscriber has its own bounded buffer; events that arrive while it is full are dropped
+	 * for that subscriber so a slow consumer never holds up a booking.
+	 * 
+	 * @param subscriber The subscriber to receive events
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super BookingEvent> subscriber) {
+		events.subscribe(subscriber);
+	}
+
+	/**
+	 * @return Number of events dropped because a dispatch subscriber's buffer was full
+	 */
+	public long getDroppedEvents() {
+		return events.getDroppedEvents();
+	}
+
+	/**
+	 * Publishes a lifecycle event to all dispatch subscribers without blocking
+	 * 
+	 * @param event The event to publish
+	 */
+	public void publishEvent(BookingEvent event) {
+		events.publish(event);
+	}
+
 	/**
 	 * Books a given passenger into a given Nuber region.
 	 * 
@@ -108,17 +266,32 @@ public class NuberDispatch {
 	 * @return returns a Future<BookingResult> object
 	 */
 	public Future<BookingResult> bookPassenger(Passenger passenger, String region) {
+		return bookPassenger(passenger, region, 0, 0);
+	}
+
+	/**
+	 * Books a given passenger into a given Nuber region, cancelling the booking if the passenger
+	 * is not given a driver in time, or the trip takes too long. A cancelled booking frees its
+	 * place in the region and returns any driver it had to dispatch.
+	 * 
+	 * @param passenger The passenger to book
+	 * @param region The region to book them into
+	 * @param driverTimeout Milliseconds from booking to have a driver assigned, or 0 for no limit
+	 * @param tripTimeout Milliseconds from having a driver to reaching the destination, or 0 for no limit
+	 * @return returns a Future<BookingResult> object
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region, long driverTimeout, long tripTimeout) {
         logEvent(null, passenger + ": " +  "Starting booking, getting driver"); // Booking starts
         
         NuberRegion selectedRegion = regions.get(region); // Gets selected region
         
         if (selectedRegion == null) {
             logEvent(null, "Failed booking - Region '" + region + "' does not exist.");
+            publishEvent(new BookingEvent(BookingEvent.Type.REJECTED, -1, region, null, passenger));
             return null; 
         }
         
-        logEvent(null, "Creating booking");
-        Future<BookingResult> result = selectedRegion.bookPassenger(passenger); // Creates booking in region
+        Future<BookingResult> result = selectedRegion.bookPassenger(passenger, driverTimeout, tripTimeout); // Creates booking in region
         return result;
     }
 
@@ -148,11 +321,56 @@ public class NuberDispatch {
 	    for (NuberRegion region : regions.values()) {
 	        region.shutdown(); // Shutdown each region
 	    }
+	    regionTerminated(null);
+	}
+	
+	/**
+	 * Called by each region once it has shut down and finished its bookings. When every region
+	 * has done so, the rebalancer is stopped and the event stream is completed.
+	 * 
+	 * @param region The region that has terminated
+	 */
+	synchronized void regionTerminated(NuberRegion region) {
+		if (isTerminated) return;
+		for (NuberRegion r : regions.values()) {
+			if (!r.isTerminated()) return;
+		}
+		isTerminated = true;
+		
+		if (rebalancer != null) {
+			rebalancer.stop();
+		}
+		timeouts.stop();
+		publishEvent(new BookingEvent(BookingEvent.Type.SHUT_DOWN, -1, null, null, null));
+		events.close();
+	}
+
+	/**
+	 * @return The timing wheel that runs booking timeouts for every region
+	 */
+	public TimingWheel getTimeouts() {
+		return timeouts;
 	}
 
 	public void releaseDriver(Driver driver) {
 		addDriver(driver); // Adds driver back to queue
 	}
+	
+	/**
+	 * Returns a driver to the idle drivers of the region their trip ended in
+	 * 
+	 * @param driver The driver that is now free
+	 * @param region The region the driver is now in, or null if unknown
+	 */
+	public void releaseDriver(Driver driver, String region) {
+		Queue<Driver> located = (region != null) ? regionDrivers.get(region) : null;
+		if (located == null) {
+			releaseDriver(driver);
+			return;
+		}
+		driver.setRegion(region);
+		located.offer(driver);
+	}
 
 	public void logEvent(String string) {
 		// TODO Auto-generated method stub
@@ -1,8 +1,13 @@
 package nuber.students;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -16,16 +21,30 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 
  * Bookings do NOT have to be completed in FIFO order.
  * 
+ * The Future returned for a booking can be cancelled at any point, with or without mayInterruptIfRunning.
+ * A booking still waiting for a position gives it up, a booking waiting for a driver stops waiting, and
+ * a booking with a driver returns the driver to dispatch. Bookings can also be given timeouts, which
+ * cancel them the same way.
+ * 
+ * A region is a Flow.Publisher of the BookingEvents raised within it. Every event is also
+ * forwarded to dispatch.
+ *
  */
-public class NuberRegion {
+public class NuberRegion implements Flow.Publisher<BookingEvent> {
 	
-	private boolean isShuttingDown = false;
+	private volatile boolean isShuttingDown = false;
+	private volatile boolean isTerminated = false;
 	private NuberDispatch dispatch;
 	private String regionName;
     private int maxSimultaneousJobs; 
     private final AtomicInteger currentActiveJobs;
-    private final AtomicInteger pendingBookings;
-	private ConcurrentHashMap<Passenger, CompletableFuture<BookingResult>> bookings;
+    private final AtomicInteger pendingBookings; // Accepted bookings that have not finished, each holds a place
+    private final AtomicInteger awaitingDriver; // Accepted bookings that have not been given a driver
+    private final AtomicInteger startedAwaitingDriver; // Bookings with a position that are asking dispatch for a driver
+    private final AtomicInteger arrivals; // Bookings accepted since the last call to takeArrivals()
+    private final ExecutorService bookingThreads; // One thread per simultaneous job, extra bookings queue
+    private final ConcurrentHashMap<Booking, BookingTask> activeBookings; // Accepted bookings that have not finished
+	private final BookingEventPublisher events = new BookingEventPublisher(); // Lifecycle events for this region only
 
 	/**
 	 * Creates a new Nuber region
@@ -40,7 +59,11 @@ public class NuberRegion {
 		this.maxSimultaneousJobs = maxSimultaneousJobs;
 		this.currentActiveJobs = new AtomicInteger(0);
 		this.pendingBookings = new AtomicInteger(0);
-		this.bookings = new ConcurrentHashMap<>(); // Stores all bookings in the region
+		this.awaitingDriver = new AtomicInteger(0);
+		this.startedAwaitingDriver = new AtomicInteger(0);
+		this.arrivals = new AtomicInteger(0);
+		this.bookingThreads = Executors.newFixedThreadPool(maxSimultaneousJobs);
+		this.activeBookings = new ConcurrentHashMap<>();
 	}
 	
 	/**
@@ -55,86 +78,269 @@ public class NuberRegion {
 	 * @return a Future that will provide the final BookingResult object from the completed booking
 	 */
 	public Future<BookingResult> bookPassenger(Passenger waitingPassenger) {
+		return bookPassenger(waitingPassenger, 0, 0);
+	}
+
+	/**
+	 * Creates a booking as bookPassenger(Passenger) does, that is cancelled if it times out.
+	 *
+	 * @param waitingPassenger The passenger who is booking
+	 * @param driverTimeout Milliseconds from booking to have a driver assigned, or 0 for no limit
+	 * @param tripTimeout Milliseconds from having a driver to reaching the destination, or 0 for no limit
+	 * @return a Future that will provide the final BookingResult object from the completed booking
+	 */
+	public Future<BookingResult> bookPassenger(Passenger waitingPassenger, long driverTimeout, long tripTimeout) {
 		
-		// Checks if region is shutting down
-	    if (isShuttingDown) {
-	        dispatch.logEvent(null, "Booking rejected for passenger " + waitingPassenger + " in region " + regionName + ": Region is shutting down.");
-	        return null; 
-	    }
+		// Admit under the same lock as shutdown(), so an admitted booking is always accepted by the threads
+		synchronized (this) {
+		    // Checks if region is shutting down
+		    if (isShuttingDown) {
+		        return reject(waitingPassenger);
+		    }
 
-	    // If current active jobs reached the limit, add booking to pending 
-	    if (currentActiveJobs.get() >= maxSimultaneousJobs) {
-	        dispatch.logEvent(null, "Booking accepted for passenger " + waitingPassenger + " in region " + regionName + ": Added to pending booking");
-	        pendingBookings.incrementAndGet();
-	        CompletableFuture<BookingResult> pendingFuture = new CompletableFuture<>();
-	        bookings.put(waitingPassenger, pendingFuture);
-	        return pendingFuture;
-	    }
+		    // Every accepted booking holds a place until bookingFinished(), whether or not its thread has started
+		    int activeJobs = Math.min(pendingBookings.getAndIncrement(), maxSimultaneousJobs);
+		    awaitingDriver.incrementAndGet();
+		    arrivals.incrementAndGet();
 
-	    // Create for new bookings
-	    CompletableFuture<BookingResult> bookingFuture = new CompletableFuture<>();
-	    bookings.put(waitingPassenger, bookingFuture); 
-	    
-	    // Increment the count of active jobs 
-	    currentActiveJobs.incrementAndGet(); 
-
-	    // If current active jobs is below the max, process the booking immediately
-	    if (currentActiveJobs.get() < maxSimultaneousJobs) {
-	        pendingBookings.incrementAndGet();
-	        dispatch.logEvent(null, "Passenger " + waitingPassenger + ": Starting " + regionName);
-	        processBooking(waitingPassenger, bookingFuture);
-	    }
+		    Booking booking = new Booking(dispatch, waitingPassenger, this);
+		    dispatch.logEvent(booking, "Creating booking");
+
+		    // If every position is taken, the booking waits for one to free up
+		    if (activeJobs >= maxSimultaneousJobs) {
+		        RegionAdmissionEvent.record(RegionAdmissionEvent.QUEUED, booking.getBookingId(), regionName, waitingPassenger, activeJobs);
+		        dispatch.logEvent(booking, "Booking accepted in region " + regionName + ": Added to pending booking");
+		        publishEvent(new BookingEvent(BookingEvent.Type.QUEUED, booking.getBookingId(), regionName, null, waitingPassenger));
+		    } else {
+		        RegionAdmissionEvent.record(RegionAdmissionEvent.ACCEPTED, booking.getBookingId(), regionName, waitingPassenger, activeJobs);
+		    }
 
-	    return bookingFuture;
+		    BookingTask task = new BookingTask(booking, tripTimeout);
+		    activeBookings.put(booking, task);
+		    if (driverTimeout > 0) {
+		        task.startTimeout(driverTimeout); // Before it can start, so a driver found straight away replaces it
+		    }
+		    try {
+		        bookingThreads.execute(task);
+		    } catch (RejectedExecutionException e) {
+		        // Threads have failed, give the place back as any other finished booking would
+		        task.stopTimeout();
+		        awaitingDriver.decrementAndGet();
+		        bookingFinished(booking);
+		        return reject(waitingPassenger);
+		    }
+		    return task;
+		}
 	}
-	
-	private void processBooking(Passenger passenger, CompletableFuture<BookingResult> bookingFuture) {
-	    Driver driver = dispatch.getDriver(); 
-	    if (driver != null) {
-            driver.pickUpPassenger(passenger); // Pick up the passenger
-            driver.driveToDestination(); // Drive to destination
-        } else {
-            System.out.println("No available drivers for passenger " + passenger.name);
-        }
-	    long tripDuration = calculateTripDuration(); 
-
-	    // If a driver is available, complete booking
-	    if (driver != null) {
-	        BookingResult result = new BookingResult(-1, passenger, driver, tripDuration); 
-	        bookingFuture.complete(result); 
-	        dispatch.logEvent(null, "Booking completed for passenger " + passenger + " with driver " + driver + " in region " + regionName);
-	        currentActiveJobs.decrementAndGet();
-	        pendingBookings.decrementAndGet();
-	    } else {
-	        // If no driver is available, complete the future with null driver
-	        dispatch.logEvent(null, "No driver available for passenger " + passenger + " in region " + regionName);
-	        bookingFuture.complete(new BookingResult(-1, passenger, null, 0)); 
+
+	private Future<BookingResult> reject(Passenger passenger) {
+	    RegionAdmissionEvent.record(RegionAdmissionEvent.REJECTED, -1, regionName, passenger, currentActiveJobs.get());
+	    dispatch.logEvent(null, "Booking rejected for passenger " + passenger + " in region " + regionName + ": Region is shutting down.");
+	    publishEvent(new BookingEvent(BookingEvent.Type.REJECTED, -1, regionName, null, passenger));
+	    return null;
+	}
+
+	/**
+	 * Called when a booking leaves the region, whether completed, cancelled or timed out
+	 */
+	private void bookingFinished(Booking booking) {
+	    activeBookings.remove(booking);
+	    int remainingPending = pendingBookings.decrementAndGet();
+	    dispatch.logEvent(booking, "Active bookings: " + currentActiveJobs.get() + ", pending: " + remainingPending);
+	    if (isShuttingDown && remainingPending == 0) {
+	        terminate();
 	    }
+	}
 
-	    // Log the number of active and pending bookings
-	    int remainingJobs = currentActiveJobs.decrementAndGet(); 
-	    dispatch.logEvent(null, "Active bookings: " + remainingJobs + ", pending: " + pendingBookings);
-	    
+	/**
+	 * Called by a booking of this region once dispatch has given it a driver
+	 */
+	void driverAssigned(Booking booking) {
+		awaitingDriver.decrementAndGet();
+		startedAwaitingDriver.decrementAndGet();
+
+		BookingTask task = activeBookings.get(booking);
+		if (task != null) {
+			task.driverAssigned();
+		}
 	}
-	
-	private long calculateTripDuration() {
-		return 0; 
+
+	/**
+	 * Called by a booking of this region once its trip has finished, before it releases the driver.
+	 * From then on the booking can no longer be cancelled, so it is never reported as both
+	 * completed and cancelled.
+	 * 
+	 * @return true if the booking should complete, false if it was cancelled first
+	 */
+	boolean bookingCompleting(Booking booking) {
+		BookingTask task = activeBookings.get(booking);
+		return task == null || task.startCompleting();
+	}
+
+	/**
+	 * Runs a booking on one of the region's threads, and is the Future handed back to the passenger.
+	 *
+	 * Cancelling before the booking starts releases its place straight away. Cancelling after it has
+	 * started interrupts Booking.call(), which stops waiting for a driver, or returns its driver.
+	 * A booking that kept running would hold its place and driver, so cancel(false) interrupts too.
+	 */
+	private class BookingTask extends FutureTask<BookingResult> {
+
+		private final Booking booking;
+		private final long tripTimeout;
+		private final AtomicBoolean started = new AtomicBoolean(false); // Claimed by whichever of run() or a cancel happens first
+		private volatile TimingWheel.Timeout timeout;
+		private volatile boolean isTimedOut = false;
+		private boolean isCompleting = false; // Guarded by this task's lock, set once the driver is being released
+		private final BookingPhaseEvent admission = new BookingPhaseEvent(BookingPhaseEvent.ADMISSION);
+
+		BookingTask(Booking booking, long tripTimeout)
+		{
+			super(booking::call);
+			this.booking = booking;
+			this.tripTimeout = tripTimeout;
+			admission.begin();
+		}
+
+		@Override
+		public void run() {
+			if (!started.compareAndSet(false, true)) return; // Cancelled before it began
+
+			admission.finish(booking.getBookingId(), regionName, null, booking.getPassenger());
+			currentActiveJobs.incrementAndGet();
+			startedAwaitingDriver.incrementAndGet();
+			dispatch.logEvent(booking, "Starting booking in " + regionName);
+			try {
+				super.run();
+			} finally {
+				if (!booking.hasDriver()) {
+					awaitingDriver.decrementAndGet(); // Cancelled whilst waiting
+					startedAwaitingDriver.decrementAndGet();
+				}
+				currentActiveJobs.decrementAndGet();
+				bookingFinished(booking);
+			}
+		}
+
+		/**
+		 * Cancels the booking, always interrupting it if it has started. Fails once the trip has
+		 * finished and the booking is completing.
+		 *
+		 * @param mayInterruptIfRunning Ignored, a started booking is always interrupted
+		 */
+		@Override
+		public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+			if (isCompleting) return false;
+			return super.cancel(true);
+		}
+
+		/**
+		 * @return true if the booking can now complete, false if it was cancelled first
+		 */
+		synchronized boolean startCompleting() {
+			if (isCancelled()) return false;
+			isCompleting = true;
+			return true;
+		}
+
+		void startTimeout(long delay) {
+			TimingWheel.Timeout next = dispatch.getTimeouts().schedule(() -> {
+				isTimedOut = true;
+				cancel(true);
+			}, delay);
+			timeout = next;
+			if (isDone()) {
+				next.cancel(); // Finished before the timer was set
+			}
+		}
+
+		void stopTimeout() {
+			TimingWheel.Timeout current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+		void driverAssigned() {
+			stopTimeout();
+			if (tripTimeout > 0) {
+				startTimeout(tripTimeout);
+			}
+		}
+
+		@Override
+		protected void done() {
+			stopTimeout();
+			if (!isCancelled()) return;
+
+			BookingEvent.Type type = isTimedOut ? BookingEvent.Type.TIMED_OUT : BookingEvent.Type.CANCELLED;
+			dispatch.logEvent(booking, "Booking " + type.toString().toLowerCase().replace('_', ' ') + " in region " + regionName);
+			publishEvent(new BookingEvent(type, booking.getBookingId(), regionName, booking.getDriver(), booking.getPassenger())); // Driver, if any, is being returned
+
+			// Never started, so run() will not release its place
+			if (started.compareAndSet(false, true)) {
+				awaitingDriver.decrementAndGet();
+				bookingFinished(booking);
+			}
+		}
 	}
 
 	/**
 	 * Called by dispatch to tell the region to complete its existing bookings and stop accepting any new bookings
 	 */
-	public void shutdown() {
+	public synchronized void shutdown() {
 	    isShuttingDown = true; 
+	    bookingThreads.shutdown(); // Already accepted bookings still run
 
-	    for (Passenger passenger : bookings.keySet()) {
-	        CompletableFuture<BookingResult> future = bookings.get(passenger);
-	        if (!future.isDone()) {
-	            future.complete(new BookingResult(-1, null, null, 0)); 
-	        }
+	    if (pendingBookings.get() == 0) {
+	        terminate();
 	    }
-	    bookings.clear();
+	}
+
+	/**
+	 * Runs once, after shutdown, when the last accepted booking has finished
+	 */
+	private synchronized void terminate() {
+		if (isTerminated) return;
+		isTerminated = true;
+
+		publishEvent(new BookingEvent(BookingEvent.Type.SHUT_DOWN, -1, regionName, null, null));
+		events.close();
+		dispatch.regionTerminated(this);
+	}
+
+	/**
+	 * @return true once the region has shut down and finished all its bookings
+	 */
+	public boolean isTerminated() {
+		return isTerminated;
+	}
+
+	/**
+	 * Subscribes to lifecycle events for bookings in this region only
+	 *
+	 * @param subscriber The subscriber to receive events
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super BookingEvent> subscriber) {
+		events.subscribe(subscriber);
+	}
+
+	/**
+	 * @return Number of events dropped because a region subscriber's buffer was full
+	 */
+	public long getDroppedEvents() {
+		return events.getDroppedEvents();
+	}
 
+	/**
+	 * Publishes a lifecycle event to this region's subscribers and to dispatch, without blocking
+	 *
+	 * @param event The event to publish
+	 */
+	public void publishEvent(BookingEvent event) {
+		events.publish(event);
+		dispatch.publishEvent(event);
 	}
 
 	/**
@@ -142,11 +348,35 @@ public class NuberRegion {
 	 * @return number of bookings waiting for a driver
 	 */
 	public int getBookingsAwaitingDriver() {
-		return (int) bookings.values().stream().filter(future -> !future.isDone()).count();
+		return awaitingDriver.get();
+	}
+	
+	/**
+	 * Returns the count of bookings that have a position and are waiting for dispatch to give
+	 * them a driver. Unlike getBookingsAwaitingDriver(), bookings still queued for a position
+	 * are not counted, as they cannot use a driver yet.
+	 * 
+	 * @return number of started bookings waiting for a driver
+	 */
+	public int getStartedBookingsAwaitingDriver() {
+		return startedAwaitingDriver.get();
 	}
 	
 	public int getPendingBookings() {
 	    return pendingBookings.get(); 
 	}
-}
 
+	/**
+	 * Returns the number of bookings accepted since the last call, and resets the count.
+	 * Used by the rebalancer to measure the arrival rate.
+	 *
+	 * @return number of bookings accepted since the previous call
+	 */
+	public int takeArrivals() {
+		return arrivals.getAndSet(0);
+	}
+
+	public String getName() {
+		return regionName;
+	}
+}
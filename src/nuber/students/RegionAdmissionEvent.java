@@ -0,0 +1,54 @@
+package nuber.students;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event raised when a region accepts, queues or rejects a booking
+ *
+ */
+@Name("nuber.RegionAdmission")
+@Label("Region Admission")
+@Category("Nuber")
+@Description("A region accepted, queued or rejected a booking")
+@StackTrace(false)
+public class RegionAdmissionEvent extends Event {
+
+	public static final String ACCEPTED = "Accepted"; // A position was free
+	public static final String QUEUED = "Queued"; // Accepted, but waiting for a position
+	public static final String REJECTED = "Rejected"; // Region is shutting down
+
+	@Label("Outcome")
+	public String outcome;
+
+	@Label("Booking ID")
+	public int bookingId;
+
+	@Label("Region")
+	public String region;
+
+	@Label("Passenger")
+	public String passenger;
+
+	@Label("Active Bookings")
+	public int activeJobs;
+
+	/**
+	 * Commits an event if region admissions are being recorded
+	 */
+	public static void record(String outcome, int bookingId, String region, Passenger passenger, int activeJobs) {
+		RegionAdmissionEvent event = new RegionAdmissionEvent();
+		if (!event.shouldCommit()) return;
+
+		event.outcome = outcome;
+		event.bookingId = bookingId;
+		event.region = region;
+		event.passenger = (passenger != null) ? passenger.name : null;
+		event.activeJobs = activeJobs;
+		event.commit();
+	}
+}
@@ -21,6 +21,38 @@ public class Simulation {
 	 * @throws Exception
 	 */
 	public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents) throws Exception {
+		this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, false);
+	}
+
+	/**
+	 * 
+	 * @param regions The region names and maximum simultaneous active bookings allowed in that region
+	 * @param maxDrivers The number of drivers to create
+	 * @param maxPassengers The number of passengers to create
+	 * @param maxSleep The maximum amount a thread will sleep (in millseconds)) to simulate driving to, or dropping off a passenger
+	 * @param logEvents Whether to log booking events to the console
+	 * @param rebalance Whether dispatch should move idle drivers towards forecast demand
+	 * @throws Exception
+	 */
+	public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents, boolean rebalance) throws Exception {
+		this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, rebalance, 0, 0);
+	}
+
+	/**
+	 * Runs a simulation where passengers arrive over time, and most of them book into one "hotspot" region.
+	 * The hotspot moves through every region in turn over the course of the run.
+	 * 
+	 * @param regions The region names and maximum simultaneous active bookings allowed in that region
+	 * @param maxDrivers The number of drivers to create
+	 * @param maxPassengers The number of passengers to create
+	 * @param maxSleep The maximum amount a thread will sleep (in millseconds)) to simulate driving to, or dropping off a passenger
+	 * @param logEvents Whether to log booking events to the console
+	 * @param rebalance Whether dispatch should move idle drivers towards forecast demand
+	 * @param arrivalSpacing Milliseconds between each passenger booking, or 0 to book them all at once
+	 * @param hotspotShare Fraction (0-1) of passengers that book into the current hotspot, the rest choose a random region
+	 * @throws Exception
+	 */
+	public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents, boolean rebalance, int arrivalSpacing, double hotspotShare) throws Exception {
 		
 		//store the current time
 		long start = new Date().getTime();
@@ -35,7 +67,7 @@ public class Simulation {
 		String[] regionNames = regions.keySet().toArray(new String[0]);
 
 		//create a new dispatch object
-		NuberDispatch dispatch = new NuberDispatch(regions, logEvents);
+		NuberDispatch dispatch = new NuberDispatch(regions, logEvents, rebalance);
 
 		// create drivers that are available for jobs
 		for (int i = 0; i < maxDrivers; i++) {
@@ -51,6 +83,11 @@ public class Simulation {
 			//choose a random region to assign this person
 			String randomRegion = regionNames[new Random().nextInt(regionNames.length)];
 			
+			//or send them to the hotspot, which moves to the next region after each equal share of the passengers
+			if (new Random().nextDouble() < hotspotShare) {
+				randomRegion = regionNames[i * regionNames.length / maxPassengers];
+			}
+			
 			//add each passenger to dispatch to book their travel for a random region
 			Future<BookingResult> f = dispatch.bookPassenger(p, randomRegion);
 			if (f != null)
@@ -58,6 +95,11 @@ public class Simulation {
 				//store the future to our list
 				bookings.add(f);
 			}
+			
+			//wait for the next passenger to arrive
+			if (arrivalSpacing > 0) {
+				Thread.sleep(arrivalSpacing);
+			}
 		}
 
 		// tell all the regions to run all pending passengers, and then shutdown
@@ -69,6 +111,10 @@ public class Simulation {
 			throw new Exception("Dispatch bookPassenger() should return null if passenger requests booking after dispatch has started the shutdown");
 		}
 
+		//total time completed bookings waited for a driver
+		long totalDriverWait = 0;
+		int completedBookings = 0;
+
 		//whilst there are still active bookings, print out an update every 1s
 		while (bookings.size() > 0) {
 			
@@ -78,6 +124,11 @@ public class Simulation {
 				Future<BookingResult> f = i.next();
 
 				if (f.isDone()) {
+					BookingResult result = f.get();
+					if (result != null) {
+						totalDriverWait += result.driverWait;
+						completedBookings++;
+					}
 					i.remove();
 				}
 			}
@@ -96,5 +147,8 @@ public class Simulation {
 		//print out the final information for the simulation run
 		long totalTime = new Date().getTime() - start;
 		System.out.println("Simulation complete in "+totalTime+"ms");
+		if (completedBookings > 0) {
+			System.out.println("Average wait for driver: "+(totalDriverWait / completedBookings)+"ms (rebalancing "+(rebalance ? "on" : "off")+")");
+		}
 	}
 }
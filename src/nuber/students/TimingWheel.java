@@ -0,0 +1,245 @@
+package nuber.students;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel for large numbers of short-lived timeouts.
+ *
+ * The wheel is a ring of buckets, each covering one tick. A timeout is hashed into the bucket
+ * its deadline falls in, along with the number of full turns of the wheel still to go. A single
+ * worker thread advances one bucket per tick and hands off the timeouts that are due, so
+ * scheduling and cancelling are both O(1) however many timeouts are pending. Deadlines are only
+ * accurate to one tick, which is plenty for booking timeouts.
+ *
+ * The worker thread is only started by the first call to schedule(), so a wheel that is never
+ * used costs nothing.
+ *
+ * Timeout tasks run on a separate pool of two daemon threads, never on the worker thread, so a
+ * slow task cannot delay the ticks of other timeouts. Tasks still queue behind each other on
+ * those two threads, so they should be short.
+ *
+ */
+public class TimingWheel {
+
+	private static final int INIT = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>(); // Handed to the worker thread to place
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>(); // Handed to the worker thread to unlink
+	private final ExecutorService taskThreads; // Runs the tasks of expired timeouts, off the worker thread
+	private Thread worker; // Started by the first schedule()
+	private long startTime; // Written before isStarted is set, so read after checking it
+	private volatile boolean isStarted = false;
+	private volatile boolean isStopped = false;
+	private long tick = 0; // Only touched by the worker thread
+
+	/**
+	 * Creates a timing wheel
+	 *
+	 * @param tickMillis The duration of each tick, and so the accuracy of every deadline
+	 * @param wheelSize The number of buckets, rounded up to a power of two
+	 */
+	public TimingWheel(long tickMillis, int wheelSize)
+	{
+		int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.wheel = new Bucket[Math.max(size, 1)];
+		this.mask = wheel.length - 1;
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.taskThreads = Executors.newFixedThreadPool(2, r -> {
+			Thread t = new Thread(r, "nuber-timeouts");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Schedules a task to run once the delay has passed
+	 *
+	 * @param task The task to run once the timeout expires
+	 * @param delayMillis How long to wait before running the task
+	 * @return A handle that can cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		if (!isStarted) {
+			start();
+		}
+		long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		Timeout timeout = new Timeout(task, deadline);
+		added.offer(timeout);
+		return timeout;
+	}
+
+	private synchronized void start() {
+		if (isStarted || isStopped) return;
+
+		startTime = System.nanoTime();
+		worker = new Thread(this::run, "nuber-timing-wheel");
+		worker.setDaemon(true);
+		isStarted = true;
+		worker.start();
+	}
+
+	/**
+	 * Stops the worker thread, if it was started. Pending timeouts never run, but tasks of
+	 * timeouts that have already expired are allowed to finish.
+	 */
+	public synchronized void stop() {
+		isStopped = true;
+		taskThreads.shutdown();
+		if (worker != null) {
+			worker.interrupt();
+		}
+	}
+
+	private void run() {
+		while (!isStopped) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep = deadline - (System.nanoTime() - startTime);
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					continue; // Stopped
+				}
+			}
+
+			removeCancelled();
+			placeAdded();
+			wheel[(int) (tick & mask)].expire();
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void placeAdded() {
+		Timeout timeout;
+		while ((timeout = added.poll()) != null) {
+			if (timeout.state.get() == CANCELLED) continue;
+
+			long ticks = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (ticks - tick) / wheel.length;
+			wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout); // Already overdue runs this tick
+		}
+	}
+
+	/**
+	 * A scheduled task that can be cancelled until it has run
+	 */
+	public class Timeout {
+
+		private final Runnable task;
+		private final long deadline; // Nanoseconds since the wheel started
+		private final AtomicInteger state = new AtomicInteger(INIT);
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		private Timeout(Runnable task, long deadline)
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return true if the task had not yet run and now never will
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(INIT, CANCELLED)) return false;
+			cancelled.offer(this);
+			return true;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(INIT, EXPIRED)) return;
+			try {
+				taskThreads.execute(this::run);
+			} catch (RejectedExecutionException e) {
+				// Stopped whilst this tick was expiring
+			}
+		}
+
+		private void run() {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				t.printStackTrace(); // One bad task must not stop the others
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of the timeouts hashed to one tick, only touched by the worker thread
+	 */
+	private class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expire() {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					timeout.expire(); // Deadline falls within this tick
+				} else if (timeout.state.get() == CANCELLED) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.bucket != this) return; // Already removed
+
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			} else {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+}